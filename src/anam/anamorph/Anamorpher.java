@@ -22,19 +22,117 @@ import static java.lang.Math.round;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+import javax.imageio.ImageReader;
 
 import anam.definitions.Cylinder;
 import anam.definitions.Point3D;
+import anam.definitions.Visitor;
 
 public class Anamorpher {
+    /** Rows and columns reflected by {@link #bounds}. */
+    private static final int BOUNDS_SAMPLES = 64;
+    /** Approximate header size of an array object. */
+    private static final int ARRAY_HEADER_BYTES = 16;
+    /** Columns processed between checks for cancellation. */
+    private static final int BAND_COLUMNS = 32;
+
     private final Cylinder c;
+    private final Precision precision;
 
     public Anamorpher(Cylinder o) {
+        this(o, Precision.DOUBLE);
+    }
+
+    public Anamorpher(Cylinder o, Precision precision) {
         this.c = o;
+        this.precision = precision;
     }
 
     public BufferedImage anamorph(BufferedImage img, Point3D eye) {
+        return anamorph(img, eye, null);
+    }
+
+    /**
+     * Returns the anamorph of img, keeping only what lands on canvas.
+     * Pixels whose reflections fall outside canvas are not shaded, nor is any
+     * quadrilateral they are a corner of, and the result is cropped to the
+     * reflections that remain.
+     *
+     * @param img the image to anamorph.
+     * @param eye the viewpoint.
+     * @param canvas printable area in reflection coordinates, i.e. with the
+     *        cylinder's axis at the origin. {@code null} keeps everything.
+     * @return the anamorphed image.
+     */
+    public BufferedImage anamorph(BufferedImage img, Point3D eye, Rectangle canvas) {
+        return anamorph(img, eye, canvas, () -> false, ProgressListener.NONE);
+    }
+
+    public CompletableFuture<BufferedImage> anamorphAsync(
+            BufferedImage img, Point3D eye,
+            Executor executor, ProgressListener listener)
+    {
+        return anamorphAsync(img, eye, null, executor, listener);
+    }
+
+    /**
+     * Computes {@link #anamorph(BufferedImage, Point3D, Rectangle)} on
+     * executor. Cancelling the returned future, or interrupting the thread
+     * running it, stops the computation at the next band of
+     * {@value #BAND_COLUMNS} columns and drops its working arrays.
+     *
+     * @param img the image to anamorph.
+     * @param eye the viewpoint.
+     * @param canvas printable area, or {@code null} to keep everything.
+     * @param executor runs the computation.
+     * @param listener told of progress as each band starts, and of 1 once
+     *        the image is complete.
+     * @return the anamorphed image, once computed.
+     */
+    public CompletableFuture<BufferedImage> anamorphAsync(
+            BufferedImage img, Point3D eye, Rectangle canvas,
+            Executor executor, ProgressListener listener)
+    {
+        CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        BooleanSupplier cancelled = () ->
+                future.isCancelled() || Thread.currentThread().isInterrupted();
+
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+
+                try {
+                    future.complete(anamorph(img, eye, canvas, cancelled, listener));
+                } catch (CancellationException e) {
+                    future.cancel(false);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    private BufferedImage anamorph(
+            BufferedImage img, Point3D eye, Rectangle canvas,
+            BooleanSupplier cancelled, ProgressListener listener)
+    {
         Point3D v = eye;
 
         int lowx = Integer.MAX_VALUE, lowy = Integer.MAX_VALUE;
@@ -42,31 +140,51 @@ public class Anamorpher {
 
         int picWidth = img.getWidth();
         int picLenth = img.getHeight();
-        int[][] rgb = toPixelArray(img);
+        // copying, reflecting and shading each visit every column once
+        int columns = 3 * picWidth;
+        int[][] rgb = toPixelArray(img, columns, cancelled, listener);
         int wadjuster = picWidth / 2;
         int hadjuster = 0;
         int[][] aposx = new int[picWidth][picLenth];
         int[][] aposy = new int[picWidth][picLenth];
-        Reflection r = new Reflection();
+        boolean[][] culled = canvas == null ? null : new boolean[picWidth][picLenth];
+        Visitor r = precision.reflection();
 
         for (int i = 0; i < picWidth; ++i) {
+            if (i % BAND_COLUMNS == 0) {
+                checkpoint(picWidth + i, columns, cancelled, listener);
+            }
             for (int j = 0; j < picLenth; ++j) {
                 Point3D p = new Point3D(0, i - wadjuster, j + hadjuster);
                 Point3D rp = c.accept(r, p, v);
 
                 if (rp.isAtInfinity()) {
+                    if (culled != null) {
+                        culled[i][j] = true;
+                    }
                     continue;
                 }
                 aposx[i][j] = (int) round(rp.x);
                 aposy[i][j] = (int) round(rp.y);
 
-                if (aposx[i][j] < lowx)      { lowx = aposx[i][j]; }
-                else if (aposx[i][j] > maxx) { maxx = aposx[i][j]; }
-                if (aposy[i][j] < lowy)      { lowy = aposy[i][j]; }
-                else if (aposy[i][j] > maxy) { maxy = aposy[i][j]; }
+                if (culled != null && !canvas.contains(aposx[i][j], aposy[i][j])) {
+                    culled[i][j] = true;
+                    continue;
+                }
+
+                lowx = Math.min(lowx, aposx[i][j]);
+                maxx = Math.max(maxx, aposx[i][j]);
+                lowy = Math.min(lowy, aposy[i][j]);
+                maxy = Math.max(maxy, aposy[i][j]);
             }
         }
 
+        if (lowx > maxx || lowy > maxy) {
+            throw new IllegalArgumentException(canvas == null
+                    ? "No pixel of the image has a reflection"
+                    : "Nothing lands on canvas " + canvas);
+        }
+
         // now normalize coordinates by transposing
         int xr = maxx - lowx + 1;
         int yr = maxy - lowy + 1;
@@ -84,30 +202,216 @@ public class Anamorpher {
 
         BufferedImage image = new BufferedImage(xr, yr, BufferedImage.TYPE_INT_RGB);
 
-        // set all pixels to white
-        for (int i = 0; i < xr - 1; ++i) {
-            for (int j = 0; j < yr - 1; ++j) {
-                image.setRGB(i, j, Color.white.getRGB());
+        Graphics g = image.getGraphics();
+
+        try {
+            // set all pixels to white
+            g.setColor(Color.white);
+            g.fillRect(0, 0, xr - 1, yr - 1);
+
+            // smoothen colors across the image
+            for (int i = 0; i < picWidth; ++i) {
+                if (i % BAND_COLUMNS == 0) {
+                    checkpoint(2 * picWidth + i, columns, cancelled, listener);
+                }
+                for (int j = 0; j < picLenth; ++j) {
+                    if ((i == picWidth - 1)
+                            || (j == picLenth - 1)) {
+                        continue;
+                    }
+                    if (culled != null && (culled[i][j] || culled[i+1][j]
+                            || culled[i][j+1] || culled[i+1][j+1])) {
+                        continue;
+                    }
+
+                    shade(aposx, aposy, i, j, rgb, g);
+                }
             }
+        } finally {
+            g.dispose();
         }
 
-        Graphics g = image.getGraphics();
+        listener.progress(1.0d);
 
-        // smoothen colors across the image
-        for (int i = 0; i < picWidth; ++i) {
-            for (int j = 0; j < picLenth; ++j) {
-                if ((i == picWidth - 1)
-                        || (j == picLenth - 1)) {
+        return image;
+    }
+
+    /*
+     * Called as each band starts; aborts the computation if it has been
+     * cancelled, otherwise reports the work done before the band.
+     */
+    private static void checkpoint(
+            int done, int total,
+            BooleanSupplier cancelled, ProgressListener listener)
+    {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+
+        listener.progress((double) done / total);
+    }
+
+    /**
+     * Returns the extent, in reflection coordinates, of the anamorph of a
+     * width x height image without computing it. Only a coarse grid of pixels
+     * that includes the image's corners is reflected, so the result may be a
+     * pixel or two smaller than the anamorph itself.
+     *
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param eye the viewpoint.
+     * @return bounds of the anamorph; empty if no pixel has a reflection.
+     */
+    public Rectangle bounds(int width, int height, Point3D eye) {
+        return bounds(width, height, eye, null);
+    }
+
+    /**
+     * Returns the extent of the anamorph of a width x height image cropped to
+     * canvas, as {@link #anamorph(BufferedImage, Point3D, Rectangle)} crops
+     * it, without computing it. Sampled pixels whose reflections fall outside
+     * canvas are skipped, so a canvas that only a few pixels reach may be
+     * missed entirely.
+     *
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param eye the viewpoint.
+     * @param canvas printable area, or {@code null} to keep everything.
+     * @return bounds of the anamorph; empty if no sampled pixel lands.
+     */
+    public Rectangle bounds(int width, int height, Point3D eye, Rectangle canvas) {
+        int lowx = Integer.MAX_VALUE, lowy = Integer.MAX_VALUE;
+        int maxx = Integer.MIN_VALUE, maxy = Integer.MIN_VALUE;
+
+        int wadjuster = width / 2;
+        Visitor r = precision.reflection();
+
+        for (int i : samples(width)) {
+            for (int j : samples(height)) {
+                Point3D rp = c.accept(r, new Point3D(0, i - wadjuster, j), eye);
+
+                if (rp.isAtInfinity()) {
                     continue;
                 }
 
-                shade(aposx, aposy, i, j, rgb, g);
+                int x = (int) round(rp.x);
+                int y = (int) round(rp.y);
+
+                if (canvas != null && !canvas.contains(x, y)) {
+                    continue;
+                }
+
+                lowx = Math.min(lowx, x);
+                maxx = Math.max(maxx, x);
+                lowy = Math.min(lowy, y);
+                maxy = Math.max(maxy, y);
             }
         }
 
-        g.dispose();
+        if (lowx > maxx) {
+            return new Rectangle();
+        }
 
-        return image;
+        return new Rectangle(lowx, lowy, maxx - lowx + 1, maxy - lowy + 1);
+    }
+
+    /**
+     * Predicts the cost of anamorphing the image in input, reading only its
+     * header.
+     *
+     * @param input an image file.
+     * @param eye the viewpoint.
+     * @return the predicted cost.
+     * @throws IOException if input cannot be read or is not an image.
+     */
+    public Estimate estimate(File input, Point3D eye) throws IOException {
+        return estimate(input, eye, null);
+    }
+
+    /**
+     * Predicts the cost of anamorphing the image in input onto canvas, reading
+     * only its header.
+     *
+     * @param input an image file.
+     * @param eye the viewpoint.
+     * @param canvas printable area, or {@code null} to keep everything.
+     * @return the predicted cost.
+     * @throws IOException if input cannot be read or is not an image.
+     */
+    public Estimate estimate(File input, Point3D eye, Rectangle canvas) throws IOException {
+        try (ImageFile image = ImageFile.open(input)) {
+            ImageReader reader = image.reader();
+
+            return estimate(reader.getWidth(0), reader.getHeight(0), eye, canvas);
+        }
+    }
+
+    /**
+     * Predicts the cost of {@link #anamorph(BufferedImage, Point3D)} for a
+     * width x height image without computing it.
+     *
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param eye the viewpoint.
+     * @return the predicted cost.
+     */
+    public Estimate estimate(int width, int height, Point3D eye) {
+        return estimate(width, height, eye, null);
+    }
+
+    /**
+     * Predicts the cost of
+     * {@link #anamorph(BufferedImage, Point3D, Rectangle)} for a width x
+     * height image without computing it. A canvas shrinks the output and the
+     * pixels filled but adds an array flagging the culled pixels.
+     *
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param eye the viewpoint.
+     * @param canvas printable area, or {@code null} to keep everything.
+     * @return the predicted cost.
+     */
+    public Estimate estimate(int width, int height, Point3D eye, Rectangle canvas) {
+        Rectangle bounds = bounds(width, height, eye, canvas);
+        int outWidth = bounds.width;
+        int outHeight = bounds.height;
+        long pixels = (long) width * height;
+        long outPixels = (long) outWidth * outHeight;
+
+        // one int[width][height] per pixel array: rgb, aposx and aposy
+        long rows = (width + 1L) * ARRAY_HEADER_BYTES;
+        long heap = pixels * Integer.BYTES // the input image
+                + 3 * (pixels * Integer.BYTES + rows)
+                + outPixels * Integer.BYTES; // the anamorphed image
+        if (canvas != null) {
+            heap += pixels + rows; // boolean[width][height] of culled pixels
+        }
+
+        // reflect every pixel at the kernel's price, copy it and shade a
+        // quadrilateral for it, paint the output white and then fill it
+        long cost = Math.round(pixels * precision.reflectionCost())
+                + 2 * pixels + 2 * outPixels;
+
+        return new Estimate(outWidth, outHeight, heap, cost);
+    }
+
+    /*
+     * At most BOUNDS_SAMPLES + 1 evenly spaced indices in [0, n) including
+     * both ends.
+     */
+    private static int[] samples(int n) {
+        int step = Math.max(1, n / BOUNDS_SAMPLES);
+        int[] indices = new int[(n - 1) / step + 2];
+        int k = 0;
+
+        for (int i = 0; i < n; i += step) {
+            indices[k++] = i;
+        }
+        if (indices[k - 1] != n - 1) {
+            indices[k++] = n - 1;
+        }
+
+        return Arrays.copyOf(indices, k);
     }
 
     /**
@@ -191,11 +495,25 @@ public class Anamorpher {
      * @return array representing pixels of img.
      */
     public static int[][] toPixelArray(BufferedImage img) {
+        return toPixelArray(img, img.getWidth(), () -> false, ProgressListener.NONE);
+    }
+
+    /*
+     * toPixelArray(img) that counts its columns as the first of columns
+     * steps, checking for cancellation and reporting progress per band.
+     */
+    private static int[][] toPixelArray(
+            BufferedImage img, int columns,
+            BooleanSupplier cancelled, ProgressListener listener)
+    {
         int width = img.getWidth();
         int height = img.getHeight();
         int[][] pixels = new int[width][height];
 
         for (int i = 0; i < width; ++i) {
+            if (i % BAND_COLUMNS == 0) {
+                checkpoint(i, columns, cancelled, listener);
+            }
             for (int j = 0; j < height; ++j) {
                 pixels[i][j] = img.getRGB(width-i-1, height-j-1);
             }
